@@ -0,0 +1,152 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * resolves composed annotations, e.g. a stereotype annotated with an inject annotation or a qualifier. Every annotation
+ * type is resolved only once.
+ */
+class AnnotationIndex {
+
+  private static final Set<Class<? extends Annotation>> QUALIFIER_MARKERS = loadAnnotations(
+      "javax.inject.Qualifier",
+      "com.google.inject.BindingAnnotation");
+  private static final Set<Class<? extends Annotation>> QUALIFIER_ANNOTATIONS = loadAnnotations(
+      "javax.inject.Qualifier",
+      "com.google.inject.BindingAnnotation",
+      "org.springframework.beans.factory.annotation.Qualifier");
+
+  private static final Map<Class<? extends Annotation>, Set<Class<? extends Annotation>>> META_ANNOTATIONS =
+      new ConcurrentHashMap<Class<? extends Annotation>, Set<Class<? extends Annotation>>>();
+  private static final Map<Class<? extends Annotation>, Boolean> INJECT_ANNOTATIONS = new ConcurrentHashMap<Class<? extends Annotation>, Boolean>();
+  private static final Map<Class<? extends Annotation>, Boolean> QUALIFIERS = new ConcurrentHashMap<Class<? extends Annotation>, Boolean>();
+  private static final Map<Class<? extends Annotation>, Set<Annotation>> META_QUALIFIERS = new ConcurrentHashMap<Class<? extends Annotation>, Set<Annotation>>();
+
+  /**
+   * @return whether the annotation type is a configured inject annotation or annotated with one
+   */
+  static boolean isInjectAnnotation(Class<? extends Annotation> annotationType) {
+    Boolean injectAnnotation = INJECT_ANNOTATIONS.get(annotationType);
+    if (injectAnnotation == null) {
+      injectAnnotation = containsAny(withMetaAnnotations(annotationType), MockInjector.INJECTION_ANNOTATIONS);
+      INJECT_ANNOTATIONS.put(annotationType, injectAnnotation);
+    }
+    return injectAnnotation;
+  }
+
+  /**
+   * @return whether the annotation type is a javax, guice or spring qualifier or annotated with one
+   */
+  static boolean isQualifier(Class<? extends Annotation> annotationType) {
+    Boolean qualifier = QUALIFIERS.get(annotationType);
+    if (qualifier == null) {
+      // the markers only declare other annotations as qualifiers
+      qualifier = !QUALIFIER_MARKERS.contains(annotationType) && containsAny(withMetaAnnotations(annotationType), QUALIFIER_ANNOTATIONS);
+      QUALIFIERS.put(annotationType, qualifier);
+    }
+    return qualifier;
+  }
+
+  /**
+   * @return the annotation, if it is a qualifier, and all qualifiers its type is annotated with, directly or indirectly
+   */
+  static Set<Annotation> qualifiersOf(Annotation annotation) {
+    Set<Annotation> metaQualifiers = META_QUALIFIERS.get(annotation.annotationType());
+    if (metaQualifiers == null) {
+      metaQualifiers = new HashSet<Annotation>();
+      collectMetaQualifiers(annotation.annotationType(), metaQualifiers, new HashSet<Class<? extends Annotation>>());
+      metaQualifiers = Collections.unmodifiableSet(metaQualifiers);
+      META_QUALIFIERS.put(annotation.annotationType(), metaQualifiers);
+    }
+    if (!isQualifier(annotation.annotationType())) {
+      return metaQualifiers;
+    }
+    Set<Annotation> qualifiers = new HashSet<Annotation>(metaQualifiers);
+    qualifiers.add(annotation);
+    return qualifiers;
+  }
+
+  /**
+   * @return the annotation type and all annotation types it is annotated with, directly or indirectly
+   */
+  static Set<Class<? extends Annotation>> withMetaAnnotations(Class<? extends Annotation> annotationType) {
+    Set<Class<? extends Annotation>> metaAnnotations = META_ANNOTATIONS.get(annotationType);
+    if (metaAnnotations == null) {
+      metaAnnotations = new HashSet<Class<? extends Annotation>>();
+      collectMetaAnnotations(annotationType, metaAnnotations);
+      metaAnnotations = Collections.unmodifiableSet(metaAnnotations);
+      META_ANNOTATIONS.put(annotationType, metaAnnotations);
+    }
+    return metaAnnotations;
+  }
+
+  private static void collectMetaAnnotations(Class<? extends Annotation> annotationType, Set<Class<? extends Annotation>> metaAnnotations) {
+    if (!metaAnnotations.add(annotationType)) {
+      return; // annotations may annotate each other
+    }
+    for (Annotation metaAnnotation : annotationType.getDeclaredAnnotations()) {
+      Class<? extends Annotation> metaAnnotationType = metaAnnotation.annotationType();
+      if (!metaAnnotationType.getName().startsWith("java.lang.annotation.")) {
+        collectMetaAnnotations(metaAnnotationType, metaAnnotations);
+      }
+    }
+  }
+
+  private static void collectMetaQualifiers(Class<? extends Annotation> annotationType, Set<Annotation> metaQualifiers,
+                                            Set<Class<? extends Annotation>> visited) {
+    if (!visited.add(annotationType)) {
+      return; // annotations may annotate each other
+    }
+    for (Annotation metaAnnotation : annotationType.getDeclaredAnnotations()) {
+      Class<? extends Annotation> metaAnnotationType = metaAnnotation.annotationType();
+      if (!metaAnnotationType.getName().startsWith("java.lang.annotation.")) {
+        if (isQualifier(metaAnnotationType)) {
+          metaQualifiers.add(metaAnnotation);
+        }
+        collectMetaQualifiers(metaAnnotationType, metaQualifiers, visited);
+      }
+    }
+  }
+
+  private static boolean containsAny(Set<Class<? extends Annotation>> annotationTypes, Set<Class<? extends Annotation>> wanted) {
+    for (Class<? extends Annotation> annotationType : annotationTypes) {
+      if (wanted.contains(annotationType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Set<Class<? extends Annotation>> loadAnnotations(String... annotationClassesAsStrings) {
+    Set<Class<? extends Annotation>> annotations = new HashSet<Class<? extends Annotation>>();
+    for (String annotationAsString : annotationClassesAsStrings) {
+      try {
+        annotations.add(Class.forName(annotationAsString).asSubclass(Annotation.class));
+      }
+      catch (ClassNotFoundException ignore) {
+        // not in classpath, is OK
+      }
+    }
+    return annotations;
+  }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * counts the invocations of a mock created with {@link InjectionMode#CONCURRENT}. Every thread counts into its own
+ * table, so threads calling the same mock do not contend. Read the counts after the calling threads have finished.
+ * <p>
+ * Mocks of interfaces are plain {@link Proxy}s handled by this class, so their invocations never reach Mockito and its
+ * locks. Mocks of classes are Mockito mocks without invocation recording; Mockito still synchronizes its stub lookup for
+ * them.
+ *
+ * <pre>
+ *   assertThat(ConcurrentInvocations.of(service.dependentServiceOne).count("getResult")).isEqualTo(64 * 1000);
+ * </pre>
+ */
+public class ConcurrentInvocations implements Answer<Object>, InvocationHandler {
+
+  private final Class<?> type;
+  private final Answer<Object> answer;
+  private final Queue<Map<Method, AtomicInteger>> countsOfAllThreads = new ConcurrentLinkedQueue<Map<Method, AtomicInteger>>();
+  private final ThreadLocal<Map<Method, AtomicInteger>> countsOfThread = new ThreadLocal<Map<Method, AtomicInteger>>() {
+    @Override
+    protected Map<Method, AtomicInteger> initialValue() {
+      Map<Method, AtomicInteger> counts = new ConcurrentHashMap<Method, AtomicInteger>();
+      countsOfAllThreads.add(counts);
+      return counts;
+    }
+  };
+
+  private ConcurrentInvocations(Class<?> type, Answer<Object> answer) {
+    this.type = type;
+    this.answer = answer;
+  }
+
+  static Object mock(Class<?> type, Answer<Object> stubbingProfile) {
+    Answer<Object> answer = stubbingProfile != null ? stubbingProfile : RETURNS_DEFAULTS;
+    ConcurrentInvocations invocations = new ConcurrentInvocations(type, answer);
+    if (type.isInterface()) {
+      return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocations);
+    }
+    return org.mockito.Mockito.mock(type, withSettings().stubOnly().defaultAnswer(invocations));
+  }
+
+  /**
+   * @param mock created with {@link InjectionMode#CONCURRENT}
+   * @return the invocations of the mock
+   */
+  public static ConcurrentInvocations of(Object mock) {
+    ConcurrentInvocations invocations = find(mock);
+    if (invocations == null) {
+      throw new IllegalArgumentException("not created with InjectionMode.CONCURRENT: " + mock);
+    }
+    return invocations;
+  }
+
+  /**
+   * @return the invocations of a mock created with {@link InjectionMode#CONCURRENT}, null for any other object
+   */
+  static ConcurrentInvocations find(Object object) {
+    if (object == null) {
+      return null;
+    }
+    if (Proxy.isProxyClass(object.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(object);
+      return handler instanceof ConcurrentInvocations ? (ConcurrentInvocations) handler : null;
+    }
+    if (mockingDetails(object).isMock()) {
+      Answer<?> defaultAnswer = mockingDetails(object).getMockCreationSettings().getDefaultAnswer();
+      if (defaultAnswer instanceof ConcurrentInvocations) {
+        return (ConcurrentInvocations) defaultAnswer;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * handles invocations of interface mocks without Mockito
+   */
+  public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      String name = method.getName();
+      if ("equals".equals(name)) {
+        return proxy == arguments[0];
+      }
+      if ("hashCode".equals(name)) {
+        return System.identityHashCode(proxy);
+      }
+      return "concurrent mock for " + type.getName();
+    }
+    return answer(ProxyInvocation.create(proxy, method, arguments != null ? arguments : new Object[0]));
+  }
+
+  public Object answer(InvocationOnMock invocation) throws Throwable {
+    Map<Method, AtomicInteger> counts = countsOfThread.get();
+    AtomicInteger count = counts.get(invocation.getMethod());
+    if (count == null) {
+      count = new AtomicInteger();
+      counts.put(invocation.getMethod(), count);
+    }
+    count.incrementAndGet();
+    return answer.answer(invocation);
+  }
+
+  /**
+   * @param methodName name of the invoked method
+   * @return number of invocations of all methods with that name, which were not stubbed using <code>when(...)</code>
+   */
+  public int count(String methodName) {
+    int sum = 0;
+    for (Map<Method, AtomicInteger> counts : countsOfAllThreads) {
+      for (Map.Entry<Method, AtomicInteger> count : counts.entrySet()) {
+        if (count.getKey().getName().equals(methodName)) {
+          sum += count.getValue().get();
+        }
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return number of all invocations, which were not stubbed using <code>when(...)</code>
+   */
+  public int count() {
+    int sum = 0;
+    for (Map<Method, AtomicInteger> counts : countsOfAllThreads) {
+      for (AtomicInteger count : counts.values()) {
+        sum += count.get();
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * invocation of an interface mock. Created as a proxy of {@link InvocationOnMock}, because Mockito adds methods to
+   * that interface, which a class implementing it would not compile against.
+   */
+  private static class ProxyInvocation implements InvocationHandler {
+
+    private static final Constructor<?> CONSTRUCTOR = proxyConstructor();
+
+    private final Object mock;
+    private final Method method;
+    private final Object[] arguments;
+
+    private ProxyInvocation(Object mock, Method method, Object[] arguments) {
+      this.mock = mock;
+      this.method = method;
+      this.arguments = arguments;
+    }
+
+    static InvocationOnMock create(Object mock, Method method, Object[] arguments) {
+      try {
+        return (InvocationOnMock) CONSTRUCTOR.newInstance(new ProxyInvocation(mock, method, arguments));
+      } catch (Exception e) {
+        throw new RuntimeException("could not create invocation of " + method, e);
+      }
+    }
+
+    private static Constructor<?> proxyConstructor() {
+      try {
+        return Proxy.getProxyClass(InvocationOnMock.class.getClassLoader(), InvocationOnMock.class).getConstructor(InvocationHandler.class);
+      } catch (NoSuchMethodException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public Object invoke(Object proxy, Method invoked, Object[] invokedArguments) {
+      String name = invoked.getName();
+      if ("getMock".equals(name)) {
+        return mock;
+      }
+      if ("getMethod".equals(name)) {
+        return method;
+      }
+      if ("getArguments".equals(name) || "getRawArguments".equals(name)) {
+        return arguments;
+      }
+      if ("getArgument".equals(name)) {
+        return arguments[(Integer) invokedArguments[0]];
+      }
+      if ("equals".equals(name)) {
+        return proxy == invokedArguments[0];
+      }
+      if ("hashCode".equals(name)) {
+        return System.identityHashCode(proxy);
+      }
+      if ("toString".equals(name)) {
+        return "invocation of " + method;
+      }
+      throw new UnsupportedOperationException(name + " is not supported for concurrent mocks of interfaces, invoked " + method);
+    }
+  }
+}
@@ -0,0 +1,474 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * which fields the bytecode of a class reads, and which constructor and setter parameters are read directly or via the
+ * fields they are stored in. Analyses the class, its superclasses and their nested classes once per class. If the
+ * bytecode cannot be read, everything counts as read.
+ */
+class FieldUsage {
+
+  private static final Map<Class<?>, FieldUsage> USAGES = new ConcurrentHashMap<Class<?>, FieldUsage>();
+
+  private static final int ACC_STATIC = 0x0008;
+
+  private static final int ALOAD = 0x19;
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ALOAD_3 = 0x2d;
+  private static final int GETSTATIC = 0xb2;
+  private static final int GETFIELD = 0xb4;
+  private static final int PUTFIELD = 0xb5;
+  private static final int TABLESWITCH = 0xaa;
+  private static final int LOOKUPSWITCH = 0xab;
+  private static final int WIDE = 0xc4;
+  private static final int IINC = 0x84;
+
+  private final boolean analysed;
+  private final Set<String> readFields = new HashSet<String>();
+  private final Map<String, List<ParameterFlow>> parameterFlows = new HashMap<String, List<ParameterFlow>>();
+
+  static FieldUsage of(Class<?> objectClass) {
+    FieldUsage usage = USAGES.get(objectClass);
+    if (usage == null) {
+      usage = new FieldUsage(objectClass);
+      USAGES.put(objectClass, usage);
+    }
+    return usage;
+  }
+
+  private FieldUsage(Class<?> objectClass) {
+    boolean analysed;
+    try {
+      analyse(objectClass);
+      analysed = true;
+    } catch (IOException e) {
+      analysed = false;
+    } catch (RuntimeException e) { // unknown bytecode
+      analysed = false;
+    }
+    this.analysed = analysed;
+  }
+
+  boolean isRead(Field field) {
+    return !analysed || readFields.contains(field.getName());
+  }
+
+  /**
+   * @return whether the parameter is read in the method or constructor, or stored in a field, that is read
+   */
+  boolean isParameterRead(Member methodOrConstructor, int parameterIndex) {
+    if (!analysed) {
+      return true;
+    }
+    List<ParameterFlow> flows = parameterFlows.get(key(methodOrConstructor));
+    if (flows == null || parameterIndex >= flows.size()) {
+      return true;
+    }
+    ParameterFlow flow = flows.get(parameterIndex);
+    if (flow.readOtherwise) {
+      return true;
+    }
+    for (String field : flow.storedInFields) {
+      if (readFields.contains(field)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void analyse(Class<?> objectClass) throws IOException {
+    ClassLoader classLoader = objectClass.getClassLoader();
+    Queue<String> classesToAnalyse = new LinkedList<String>();
+    Set<String> seen = new HashSet<String>();
+    for (Class<?> clazz = objectClass; clazz != null && !clazz.getName().startsWith("java."); clazz = clazz.getSuperclass()) {
+      classesToAnalyse.add(clazz.getName().replace('.', '/'));
+    }
+    while (!classesToAnalyse.isEmpty()) {
+      String className = classesToAnalyse.poll();
+      if (seen.add(className)) {
+        analyse(className, classLoader, classesToAnalyse);
+      }
+    }
+  }
+
+  private void analyse(String className, ClassLoader classLoader, Queue<String> classesToAnalyse) throws IOException {
+    InputStream classFile = classLoader != null
+                            ? classLoader.getResourceAsStream(className + ".class")
+                            : ClassLoader.getSystemResourceAsStream(className + ".class");
+    if (classFile == null) {
+      throw new IOException("no class file found for " + className);
+    }
+    try {
+      new ClassFileReader(new DataInputStream(classFile)).read(className, classesToAnalyse);
+    } finally {
+      classFile.close();
+    }
+  }
+
+  private static String key(Member member) {
+    String className = member.getDeclaringClass().getName().replace('.', '/');
+    if (member instanceof Constructor) {
+      return className + ".<init>" + descriptor(((Constructor<?>) member).getParameterTypes(), void.class);
+    }
+    Method method = (Method) member;
+    return className + "." + method.getName() + descriptor(method.getParameterTypes(), method.getReturnType());
+  }
+
+  private static String descriptor(Class<?>[] parameterTypes, Class<?> returnType) {
+    StringBuilder descriptor = new StringBuilder("(");
+    for (Class<?> parameterType : parameterTypes) {
+      descriptor.append(descriptor(parameterType));
+    }
+    return descriptor.append(')').append(descriptor(returnType)).toString();
+  }
+
+  private static String descriptor(Class<?> type) {
+    if (type.isArray()) {
+      return type.getName().replace('.', '/');
+    }
+    if (type.isPrimitive()) {
+      if (type == void.class) return "V";
+      if (type == boolean.class) return "Z";
+      if (type == byte.class) return "B";
+      if (type == char.class) return "C";
+      if (type == short.class) return "S";
+      if (type == int.class) return "I";
+      if (type == long.class) return "J";
+      if (type == float.class) return "F";
+      return "D";
+    }
+    return "L" + type.getName().replace('.', '/') + ";";
+  }
+
+  private static class ParameterFlow {
+
+    private final Set<String> storedInFields = new HashSet<String>();
+    private boolean readOtherwise;
+  }
+
+  /**
+   * reads just enough of a class file to find field reads, field writes of parameters and nested classes
+   */
+  private class ClassFileReader {
+
+    private final DataInputStream in;
+    private String[] utf8;
+    private int[] classNames;
+    private int[] fieldNameAndTypes;
+    private int[] nameAndTypeNames;
+
+    ClassFileReader(DataInputStream in) {
+      this.in = in;
+    }
+
+    void read(String className, Queue<String> classesToAnalyse) throws IOException {
+      in.readInt(); // magic
+      in.readUnsignedShort(); // minor version
+      in.readUnsignedShort(); // major version
+      readConstantPool();
+      in.readUnsignedShort(); // access flags
+      in.readUnsignedShort(); // this class
+      in.readUnsignedShort(); // super class
+      skip(2 * in.readUnsignedShort()); // interfaces
+
+      int fieldCount = in.readUnsignedShort();
+      for (int i = 0; i < fieldCount; i++) {
+        skip(6);
+        skipAttributes();
+      }
+
+      int methodCount = in.readUnsignedShort();
+      for (int i = 0; i < methodCount; i++) {
+        readMethod(className);
+      }
+
+      int attributeCount = in.readUnsignedShort();
+      for (int i = 0; i < attributeCount; i++) {
+        String name = utf8[in.readUnsignedShort()];
+        int length = in.readInt();
+        if ("InnerClasses".equals(name)) {
+          readInnerClasses(className, classesToAnalyse);
+        } else {
+          skip(length);
+        }
+      }
+    }
+
+    private void readConstantPool() throws IOException {
+      int count = in.readUnsignedShort();
+      utf8 = new String[count];
+      classNames = new int[count];
+      fieldNameAndTypes = new int[count];
+      nameAndTypeNames = new int[count];
+      for (int i = 1; i < count; i++) {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+          case 1: // Utf8
+            utf8[i] = in.readUTF();
+            break;
+          case 7: // Class
+            classNames[i] = in.readUnsignedShort();
+            break;
+          case 9: // Fieldref
+            in.readUnsignedShort();
+            fieldNameAndTypes[i] = in.readUnsignedShort();
+            break;
+          case 12: // NameAndType
+            nameAndTypeNames[i] = in.readUnsignedShort();
+            in.readUnsignedShort();
+            break;
+          case 5: // Long
+          case 6: // Double
+            skip(8);
+            i++; // takes two entries
+            break;
+          case 3: // Integer
+          case 4: // Float
+          case 10: // Methodref
+          case 11: // InterfaceMethodref
+          case 17: // Dynamic
+          case 18: // InvokeDynamic
+            skip(4);
+            break;
+          case 15: // MethodHandle
+            skip(3);
+            break;
+          case 8: // String
+          case 16: // MethodType
+          case 19: // Module
+          case 20: // Package
+            skip(2);
+            break;
+          default:
+            throw new IOException("unknown constant pool tag " + tag);
+        }
+      }
+    }
+
+    private void readMethod(String className) throws IOException {
+      int accessFlags = in.readUnsignedShort();
+      String name = utf8[in.readUnsignedShort()];
+      String descriptor = utf8[in.readUnsignedShort()];
+      int attributeCount = in.readUnsignedShort();
+      for (int i = 0; i < attributeCount; i++) {
+        String attributeName = utf8[in.readUnsignedShort()];
+        int length = in.readInt();
+        if ("Code".equals(attributeName)) {
+          in.readUnsignedShort(); // max stack
+          in.readUnsignedShort(); // max locals
+          byte[] code = new byte[in.readInt()];
+          in.readFully(code);
+          skip(8 * in.readUnsignedShort()); // exception table
+          skipAttributes();
+          List<ParameterFlow> flows = readCode(code, parameterSlots(descriptor, (accessFlags & ACC_STATIC) != 0));
+          parameterFlows.put(className + "." + name + descriptor, flows);
+        } else {
+          skip(length);
+        }
+      }
+    }
+
+    private void readInnerClasses(String className, Queue<String> classesToAnalyse) throws IOException {
+      int count = in.readUnsignedShort();
+      for (int i = 0; i < count; i++) {
+        int innerClass = in.readUnsignedShort();
+        skip(6);
+        String innerClassName = utf8[classNames[innerClass]];
+        if (innerClassName.startsWith(className + "$")) {
+          classesToAnalyse.add(innerClassName);
+        }
+      }
+    }
+
+    private List<ParameterFlow> readCode(byte[] code, int[] parameterSlots) {
+      List<ParameterFlow> flows = new ArrayList<ParameterFlow>();
+      Map<Integer, ParameterFlow> flowsBySlot = new HashMap<Integer, ParameterFlow>();
+      for (int parameterSlot : parameterSlots) {
+        ParameterFlow flow = new ParameterFlow();
+        flows.add(flow);
+        if (parameterSlot >= 0) {
+          flowsBySlot.put(parameterSlot, flow);
+        }
+      }
+
+      int pc = 0;
+      while (pc < code.length) {
+        int opcode = code[pc] & 0xff;
+        int next = pc + instructionLength(code, pc);
+        if (opcode == GETFIELD || opcode == GETSTATIC) {
+          readFields.add(fieldName(code, pc));
+        } else {
+          int slot = loadedSlot(code, pc);
+          ParameterFlow flow = flowsBySlot.get(slot);
+          if (flow != null) {
+            if (next < code.length && (code[next] & 0xff) == PUTFIELD) {
+              flow.storedInFields.add(fieldName(code, next));
+            } else {
+              flow.readOtherwise = true;
+            }
+          }
+        }
+        pc = next;
+      }
+      return flows;
+    }
+
+    private String fieldName(byte[] code, int pc) {
+      int fieldref = ((code[pc + 1] & 0xff) << 8) | (code[pc + 2] & 0xff);
+      return utf8[nameAndTypeNames[fieldNameAndTypes[fieldref]]];
+    }
+
+    private void skipAttributes() throws IOException {
+      int count = in.readUnsignedShort();
+      for (int i = 0; i < count; i++) {
+        skip(2);
+        skip(in.readInt());
+      }
+    }
+
+    private void skip(int bytes) throws IOException {
+      int remaining = bytes;
+      while (remaining > 0) {
+        int skipped = in.skipBytes(remaining);
+        if (skipped <= 0) {
+          throw new IOException("unexpected end of class file");
+        }
+        remaining -= skipped;
+      }
+    }
+  }
+
+  /**
+   * @return local variable slots of the reference parameters, -1 for primitive parameters
+   */
+  private static int[] parameterSlots(String descriptor, boolean isStatic) {
+    List<Integer> slots = new ArrayList<Integer>();
+    int slot = isStatic ? 0 : 1;
+    int i = 1; // skip '('
+    while (descriptor.charAt(i) != ')') {
+      char type = descriptor.charAt(i);
+      int start = i;
+      while (descriptor.charAt(i) == '[') {
+        i++;
+      }
+      if (descriptor.charAt(i) == 'L') {
+        i = descriptor.indexOf(';', i);
+      }
+      i++;
+      boolean reference = type == 'L' || type == '[';
+      slots.add(reference ? slot : -1);
+      slot += (i - start == 1 && (type == 'J' || type == 'D')) ? 2 : 1;
+    }
+    int[] result = new int[slots.size()];
+    for (int j = 0; j < result.length; j++) {
+      result[j] = slots.get(j);
+    }
+    return result;
+  }
+
+  /**
+   * @return local variable slot loaded by an aload instruction at pc, -1 for other instructions
+   */
+  private static int loadedSlot(byte[] code, int pc) {
+    int opcode = code[pc] & 0xff;
+    if (opcode >= ALOAD_0 && opcode <= ALOAD_3) {
+      return opcode - ALOAD_0;
+    }
+    if (opcode == ALOAD) {
+      return code[pc + 1] & 0xff;
+    }
+    if (opcode == WIDE && (code[pc + 1] & 0xff) == ALOAD) {
+      return ((code[pc + 2] & 0xff) << 8) | (code[pc + 3] & 0xff);
+    }
+    return -1;
+  }
+
+  private static int instructionLength(byte[] code, int pc) {
+    int opcode = code[pc] & 0xff;
+    switch (opcode) {
+      case TABLESWITCH: {
+        int operands = pc + 1 + padding(pc);
+        int low = readInt(code, operands + 4);
+        int high = readInt(code, operands + 8);
+        return 1 + padding(pc) + 12 + 4 * (high - low + 1);
+      }
+      case LOOKUPSWITCH: {
+        int operands = pc + 1 + padding(pc);
+        int pairs = readInt(code, operands + 4);
+        return 1 + padding(pc) + 8 + 8 * pairs;
+      }
+      case WIDE:
+        return (code[pc + 1] & 0xff) == IINC ? 6 : 4;
+      case 0x10: // bipush
+      case 0x12: // ldc
+      case 0xa9: // ret
+      case 0xbc: // newarray
+        return 2;
+      case 0x11: // sipush
+      case 0x13: // ldc_w
+      case 0x14: // ldc2_w
+      case IINC:
+      case 0xbb: // new
+      case 0xbd: // anewarray
+      case 0xc0: // checkcast
+      case 0xc1: // instanceof
+      case 0xc6: // ifnull
+      case 0xc7: // ifnonnull
+        return 3;
+      case 0xc5: // multianewarray
+        return 4;
+      case 0xb9: // invokeinterface
+      case 0xba: // invokedynamic
+      case 0xc8: // goto_w
+      case 0xc9: // jsr_w
+        return 5;
+      default:
+        if (opcode >= 0x15 && opcode <= 0x19 || opcode >= 0x36 && opcode <= 0x3a) {
+          return 2; // load and store with index
+        }
+        if (opcode >= 0x99 && opcode <= 0xa8 || opcode >= 0xb2 && opcode <= 0xb8) {
+          return 3; // branches, field access and invocations
+        }
+        return 1;
+    }
+  }
+
+  private static int padding(int pc) {
+    return (4 - (pc + 1) % 4) % 4;
+  }
+
+  private static int readInt(byte[] code, int offset) {
+    return ((code[offset] & 0xff) << 24) | ((code[offset + 1] & 0xff) << 16) | ((code[offset + 2] & 0xff) << 8) | (code[offset + 3] & 0xff);
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * the dependencies each setter of an object received last, because they cannot be read back for {@link
+ * InjectionMode#INCREMENTAL}. Objects are looked up by identity, not by <code>equals</code>. Both the objects and their
+ * dependencies are held weakly, since mocks may in turn reference the object they were injected into.
+ */
+class InjectedDependencies {
+
+  private static final ConcurrentMap<ObjectKey, ConcurrentMap<InjectionPoint, Reference<?>[]>> DEPENDENCIES = new ConcurrentHashMap<ObjectKey, ConcurrentMap<InjectionPoint, Reference<?>[]>>();
+  private static final ReferenceQueue<Object> COLLECTED = new ReferenceQueue<Object>();
+
+  static void record(Object object, InjectionPoint setter, Object[] dependencies) {
+    expungeCollected();
+    Reference<?>[] references = new Reference<?>[dependencies.length];
+    for (int i = 0; i < dependencies.length; i++) {
+      references[i] = new WeakReference<Object>(dependencies[i]);
+    }
+    ObjectKey key = new ObjectKey(object, COLLECTED);
+    ConcurrentMap<InjectionPoint, Reference<?>[]> dependenciesOfObject = DEPENDENCIES.get(key);
+    if (dependenciesOfObject == null) {
+      dependenciesOfObject = new ConcurrentHashMap<InjectionPoint, Reference<?>[]>();
+      ConcurrentMap<InjectionPoint, Reference<?>[]> recorded = DEPENDENCIES.putIfAbsent(key, dependenciesOfObject);
+      if (recorded != null) {
+        dependenciesOfObject = recorded;
+      }
+    }
+    dependenciesOfObject.put(setter, references);
+  }
+
+  /**
+   * @return the dependencies the setter of the object received last, null if unknown or garbage collected
+   */
+  static Object[] lookup(Object object, InjectionPoint setter) {
+    ConcurrentMap<InjectionPoint, Reference<?>[]> dependenciesOfObject = DEPENDENCIES.get(new ObjectKey(object, null));
+    if (dependenciesOfObject == null) {
+      return null;
+    }
+    Reference<?>[] references = dependenciesOfObject.get(setter);
+    if (references == null) {
+      return null;
+    }
+    Object[] dependencies = new Object[references.length];
+    for (int i = 0; i < references.length; i++) {
+      dependencies[i] = references[i].get();
+      if (dependencies[i] == null) {
+        return null;
+      }
+    }
+    return dependencies;
+  }
+
+  private static void expungeCollected() {
+    for (Reference<?> collected = COLLECTED.poll(); collected != null; collected = COLLECTED.poll()) {
+      DEPENDENCIES.remove(collected);
+    }
+  }
+
+  private static class ObjectKey extends WeakReference<Object> {
+
+    private final int hashCode;
+
+    ObjectKey(Object object, ReferenceQueue<Object> queue) {
+      super(object, queue);
+      hashCode = System.identityHashCode(object);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof ObjectKey)) {
+        return false;
+      }
+      Object object = get();
+      return object != null && object == ((ObjectKey) other).get();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
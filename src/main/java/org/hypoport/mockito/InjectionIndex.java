@@ -0,0 +1,199 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito;
+
+import org.hypoport.mockito.InjectionPoint.FieldInjectionPoint;
+import org.hypoport.mockito.InjectionPoint.SetterInjectionPoint;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * all injection points of a class including its superclasses, looked up by name, type or annotation. Built once per
+ * class, so injecting and re-injecting do not scan the class hierarchy again.
+ */
+class InjectionIndex {
+
+  private static final Map<Class<?>, InjectionIndex> INDICES = new ConcurrentHashMap<Class<?>, InjectionIndex>();
+
+  private final Constructor<?> constructor;
+  private final List<InjectionPoint> fields = new ArrayList<InjectionPoint>();
+  private final List<InjectionPoint> setters = new ArrayList<InjectionPoint>();
+  private final Map<String, List<InjectionPoint>> byName = new HashMap<String, List<InjectionPoint>>();
+  private final Map<Class<?>, List<InjectionPoint>> byType = new HashMap<Class<?>, List<InjectionPoint>>();
+  private final Map<Class<? extends Annotation>, List<InjectionPoint>> byQualifierType = new HashMap<Class<? extends Annotation>, List<InjectionPoint>>();
+  private final Map<Annotation, List<InjectionPoint>> byQualifier = new HashMap<Annotation, List<InjectionPoint>>();
+
+  static InjectionIndex forClass(Class<?> objectClass) {
+    InjectionIndex index = INDICES.get(objectClass);
+    if (index == null) {
+      index = new InjectionIndex(objectClass);
+      INDICES.put(objectClass, index);
+    }
+    return index;
+  }
+
+  private InjectionIndex(Class<?> objectClass) {
+    constructor = findConstructor(objectClass);
+    addFields(objectClass);
+    addSetters(objectClass);
+  }
+
+  /**
+   * @return the injection annotated constructor or the default constructor, null if there is none
+   */
+  Constructor<?> getConstructor() {
+    return constructor;
+  }
+
+  /**
+   * @return injected fields, fields of superclasses first
+   */
+  List<InjectionPoint> getFields() {
+    return fields;
+  }
+
+  /**
+   * @return injected setters, setters of superclasses first
+   */
+  List<InjectionPoint> getSetters() {
+    return setters;
+  }
+
+  List<InjectionPoint> byName(String name) {
+    return lookup(byName, name);
+  }
+
+  List<InjectionPoint> byType(Class<?> type) {
+    return lookup(byType, type);
+  }
+
+  List<InjectionPoint> byQualifierType(Class<? extends Annotation> qualifierType) {
+    return lookup(byQualifierType, qualifierType);
+  }
+
+  /**
+   * @return injection points with an equal qualifier, e.g. the same <code>@Named</code> value
+   */
+  List<InjectionPoint> byQualifier(Annotation qualifier) {
+    return lookup(byQualifier, qualifier);
+  }
+
+  private static Constructor<?> findConstructor(Class<?> objectClass) {
+    for (Constructor<?> constructor : objectClass.getDeclaredConstructors()) {
+      if (MockInjector.shouldBeInjected(constructor.getDeclaredAnnotations()) || constructor.getParameterTypes().length == 0) {
+        constructor.setAccessible(true);
+        return constructor;
+      }
+    }
+    return null;
+  }
+
+  private void addFields(Class<?> objectClass) {
+    Class<?> superclass = objectClass.getSuperclass();
+    if (superclass != null) {
+      addFields(superclass);
+    }
+    for (Field field : objectClass.getDeclaredFields()) {
+      Annotation[] annotations = field.getAnnotations();
+      if (MockInjector.shouldBeInjected(annotations)) {
+        InjectionPoint point = new FieldInjectionPoint(field, annotations);
+        fields.add(point);
+        addToLookups(point);
+      }
+    }
+  }
+
+  private void addSetters(Class<?> objectClass) {
+    Class<?> superclass = objectClass.getSuperclass();
+    if (superclass != null) {
+      addSetters(superclass);
+    }
+    for (Method method : objectClass.getDeclaredMethods()) {
+      Annotation[] annotations = method.getDeclaredAnnotations();
+      if (MockInjector.shouldBeInjected(annotations)) {
+        SetterInjectionPoint point = new SetterInjectionPoint(method, annotations);
+        setters.add(point);
+        addToLookups(point);
+        addQualifiersOfParameters(point, method.getParameterAnnotations());
+        if (!point.getMethodName().equals(point.getName())) {
+          add(byName, point.getMethodName(), point);
+        }
+      }
+    }
+  }
+
+  private void addToLookups(InjectionPoint point) {
+    add(byName, point.getName(), point);
+    for (Class<?> type : point.getTypes()) {
+      add(byType, type, point);
+    }
+    for (Annotation annotation : point.getAnnotations()) {
+      addQualifierTypes(point, annotation);
+      for (Annotation qualifier : AnnotationIndex.qualifiersOf(annotation)) {
+        add(byQualifier, qualifier, point);
+      }
+    }
+  }
+
+  private void addQualifiersOfParameters(InjectionPoint point, Annotation[][] parameterAnnotations) {
+    for (Annotation[] annotations : parameterAnnotations) {
+      for (Annotation annotation : annotations) {
+        if (AnnotationIndex.isQualifier(annotation.annotationType())) {
+          addQualifierTypes(point, annotation);
+          for (Annotation qualifier : AnnotationIndex.qualifiersOf(annotation)) {
+            add(byQualifier, qualifier, point);
+          }
+        }
+      }
+    }
+  }
+
+  private void addQualifierTypes(InjectionPoint point, Annotation annotation) {
+    for (Class<? extends Annotation> annotationType : AnnotationIndex.withMetaAnnotations(annotation.annotationType())) {
+      if (AnnotationIndex.isQualifier(annotationType)) {
+        add(byQualifierType, annotationType, point);
+      }
+    }
+  }
+
+  private static <K> void add(Map<K, List<InjectionPoint>> lookup, K key, InjectionPoint point) {
+    List<InjectionPoint> points = lookup.get(key);
+    if (points == null) {
+      points = new ArrayList<InjectionPoint>();
+      lookup.put(key, points);
+    }
+    if (!points.contains(point)) {
+      points.add(point);
+    }
+  }
+
+  private static <K> List<InjectionPoint> lookup(Map<K, List<InjectionPoint>> lookup, K key) {
+    List<InjectionPoint> points = lookup.get(key);
+    if (points == null) {
+      return Collections.emptyList();
+    }
+    return points;
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito;
+
+/**
+ * changes how {@link MockInjector} creates and injects mocks
+ */
+public enum InjectionMode {
+
+  /**
+   * creates mocks meant to be used by many threads at once, e.g. in load tests <ul> <li>no invocations are recorded by
+   * Mockito, so they cannot be verified with <code>verify(...)</code>; use {@link ConcurrentInvocations} instead</li>
+   * <li>mocks of interfaces are plain proxies, which answer from the {@link StubbingProfile} of their type without any
+   * locking; they cannot be stubbed with <code>when(...)</code></li> <li>mocks of classes are Mockito mocks, whose stub
+   * lookup Mockito still synchronizes</li> </ul>
+   */
+  CONCURRENT,
+
+  /**
+   * injects mocks only where the bytecode of the injected class reads them. Fields that are never read, and constructor
+   * or setter parameters that are neither read nor stored in a read field, get a mock shared by all injections
+   * instead of a new one. The bytecode is analysed once per class. Dependencies only read through reflection or
+   * generated code are not recognized; their shared mock throws an <code>IllegalStateException</code> on every
+   * invocation, including the ones used for stubbing with <code>when(...)</code>, so it cannot leak stubs between tests.
+   */
+  USAGE_DRIVEN,
+
+  /**
+   * keeps the mocks already injected, which were neither stubbed nor invoked, and injects new mocks only where the
+   * previous ones were used. Useful when injecting the same object again for every row of a data driven test. Setters
+   * are called again if any of the mocks they received last was used; setters never called by {@link MockInjector} are
+   * always called.
+   */
+  INCREMENTAL
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito;
+
+import java.beans.Introspector;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Set;
+
+/**
+ * an injected field or setter of a class, see {@link InjectionIndex}
+ */
+abstract class InjectionPoint {
+
+  private final String name;
+  private final Class<?>[] types;
+  private final Annotation[] annotations;
+
+  InjectionPoint(String name, Class<?>[] types, Annotation[] annotations) {
+    this.name = name;
+    this.types = types;
+    this.annotations = annotations;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  Class<?>[] getTypes() {
+    return types;
+  }
+
+  Annotation[] getAnnotations() {
+    return annotations;
+  }
+
+  abstract void injectMocks(Object object, Set<InjectionMode> modes) throws IllegalAccessException, InvocationTargetException;
+
+  abstract void inject(Object object, Object dependency) throws IllegalAccessException, InvocationTargetException;
+
+  static class FieldInjectionPoint extends InjectionPoint {
+
+    private final Field field;
+
+    FieldInjectionPoint(Field field, Annotation[] annotations) {
+      super(field.getName(), new Class<?>[]{field.getType()}, annotations);
+      this.field = field;
+      field.setAccessible(true);
+    }
+
+    @Override
+    void injectMocks(Object object, Set<InjectionMode> modes) throws IllegalAccessException {
+      Class<?> fieldType = field.getType();
+      if (Modifier.isFinal(fieldType.getModifiers())) {
+        return; // don't touch final fields
+      }
+      if (modes.contains(InjectionMode.INCREMENTAL) && MockInjector.isUntouchedMock(field.get(object))) {
+        return;
+      }
+      Object mock = modes.contains(InjectionMode.USAGE_DRIVEN) && !FieldUsage.of(object.getClass()).isRead(field)
+                    ? MockInjector.sentinelIfMockable(fieldType)
+                    : MockInjector.mockIfMockable(fieldType, modes);
+      if (mock != null) {
+        field.set(object, mock);
+      }
+    }
+
+    @Override
+    void inject(Object object, Object dependency) throws IllegalAccessException {
+      field.set(object, dependency);
+    }
+  }
+
+  static class SetterInjectionPoint extends InjectionPoint {
+
+    private final Method setter;
+
+    SetterInjectionPoint(Method setter, Annotation[] annotations) {
+      super(propertyName(setter), setter.getParameterTypes(), annotations);
+      this.setter = setter;
+      setter.setAccessible(true);
+    }
+
+    @Override
+    void injectMocks(Object object, Set<InjectionMode> modes) throws IllegalAccessException, InvocationTargetException {
+      if (modes.contains(InjectionMode.INCREMENTAL) && allUntouchedMocks(InjectedDependencies.lookup(object, this))) {
+        return;
+      }
+      Object[] mocks = MockInjector.createMocksForParameters(setter, getTypes(), object.getClass(), modes);
+      if (!anyNull(mocks)) { // avoid NullPointerExceptions in setter-code
+        setter.invoke(object, mocks);
+        InjectedDependencies.record(object, this, mocks);
+      }
+    }
+
+    @Override
+    void inject(Object object, Object dependency) throws IllegalAccessException, InvocationTargetException {
+      if (getTypes().length != 1) {
+        throw new IllegalArgumentException("setter " + setter + " takes more than one dependency");
+      }
+      setter.invoke(object, dependency);
+      InjectedDependencies.record(object, this, new Object[]{dependency});
+    }
+
+    private static boolean allUntouchedMocks(Object[] dependencies) {
+      if (dependencies == null) {
+        return false;
+      }
+      for (Object dependency : dependencies) {
+        if (!MockInjector.isUntouchedMock(dependency)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    String getMethodName() {
+      return setter.getName();
+    }
+
+    private static String propertyName(Method setter) {
+      String name = setter.getName();
+      if (name.length() > 3 && name.startsWith("set")) {
+        return Introspector.decapitalize(name.substring(3));
+      }
+      return name;
+    }
+
+    private static boolean anyNull(Object[] mocks) {
+      for (Object mock : mocks) {
+        if (mock == null) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -15,26 +15,45 @@
  */
 package org.hypoport.mockito;
 
+import org.mockito.MockingDetails;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.withSettings;
 
 /**
  * Tool to inject all fields of any class <ul> <li>supports constructor injection, field injection and setter injection</li>
  * <li>does not inject via setter, if one parameter is not mockable (e.g.: String) in order to avoid NullPointerExceptions</li>
- * <li>supports javax, spring and guice annotations by default</li> <li>supported annotations can be configured using {@link
- * MockInjectorConfigurator} before the first call</li> </ul>
+ * <li>supports javax, spring and guice annotations by default, also as meta-annotations of composed annotations</li>
+ * <li>supported annotations can be configured using {@link MockInjectorConfigurator} before the first call</li> <li>mocks
+ * of types with a registered {@link StubbingProfile} are created already stubbed</li> <li>single dependencies of an
+ * injected object can be replaced using {@link #reinjectMocks(Object, String, InjectionMode...)}, {@link
+ * #reinjectMocks(Object, Class, InjectionMode...)}, {@link #reinjectMocksQualifiedBy(Object, Class, InjectionMode...)}
+ * and {@link #injectDependency(Object, String, Object)}</li> <li>{@link InjectionMode}s change how mocks are created,
+ * e.g. for concurrent use, only where the injected class reads them or only where the previous mocks were used</li>
+ * </ul>
  */
 public class MockInjector {
 
   static final Set<Class<? extends Annotation>> INJECTION_ANNOTATIONS = MockInjectorConfigurator.getInjectAnnotations();
 
+  private static final Map<Class<?>, Object> SENTINELS = new ConcurrentHashMap<Class<?>, Object>();
+
   /**
    * injects all injection annotated fields with mocks no constructor injection possible ;-)
    *
@@ -43,8 +62,20 @@ public class MockInjector {
    * @return the mock object from the argument
    */
   public static <T> T injectMocks(T object) {
+    return injectMocks(object, new InjectionMode[0]);
+  }
+
+  /**
+   * injects all injection annotated fields with mocks no constructor injection possible ;-)
+   *
+   * @param object to be filled with mocks
+   * @param modes how the mocks are created and injected
+   * @param <T> type of object
+   * @return the mock object from the argument
+   */
+  public static <T> T injectMocks(T object, InjectionMode... modes) {
     try {
-      injectFieldsAndSetters(object, object.getClass());
+      injectFieldsAndSetters(object, object.getClass(), modeSet(modes));
     } catch (RuntimeException e) {
       throw e;
     } catch (Exception e) {
@@ -61,20 +92,29 @@ public class MockInjector {
    * @return the instantiated object
    */
   public static <T> T injectMocks(Class<T> clazz) {
+    return injectMocks(clazz, new InjectionMode[0]);
+  }
+
+  /**
+   * creates an instance of the given class and injects all injection annotated fields with mocks
+   *
+   * @param clazz class to be instantiated and filled with mocks
+   * @param modes how the mocks are created and injected
+   * @param <T> type of the class
+   * @return the instantiated object
+   */
+  public static <T> T injectMocks(Class<T> clazz, InjectionMode... modes) {
+    Set<InjectionMode> modeSet = modeSet(modes);
     try {
-      Constructor<?>[] constructors = clazz.getDeclaredConstructors();
-      for (Constructor<?> constructor : constructors) {
-        if (shouldBeInjected(constructor.getDeclaredAnnotations()) || constructor.getParameterTypes().length == 0) {
-          constructor.setAccessible(true);
-          Class<?>[] parameterTypes = constructor.getParameterTypes();
-          Object[] mocks = createMocksForParameterTypes(parameterTypes);
-          T instantiated = (T) constructor.newInstance(mocks);
-          injectFieldsAndSetters(instantiated, clazz);
-          return instantiated;
-        }
+      Constructor<?> constructor = InjectionIndex.forClass(clazz).getConstructor();
+      if (constructor == null) {
+        // we hopefully never get here:
+        throw new RuntimeException("no constructor found for class " + clazz);
       }
-      // we hopefully never get here:
-      throw new RuntimeException("no constructor found for class " + clazz);
+      Object[] mocks = createMocksForParameters(constructor, constructor.getParameterTypes(), clazz, modeSet);
+      T instantiated = (T) constructor.newInstance(mocks);
+      injectFieldsAndSetters(instantiated, clazz, modeSet);
+      return instantiated;
     } catch (RuntimeException e) {
       throw e;
     } catch (Exception e) {
@@ -82,90 +122,217 @@ public class MockInjector {
     }
   }
 
+  /**
+   * injects fresh mocks into all injection points of an already injected object, which have the given name. The name of
+   * a setter is the name of its method or of the property it sets.
+   *
+   * @param object to be partially filled with mocks
+   * @param name name of the fields or setters to be injected
+   * @param modes how the mocks are created and injected
+   * @param <T> type of object
+   * @return the object from the argument
+   */
+  public static <T> T reinjectMocks(T object, String name, InjectionMode... modes) {
+    injectMocks(object, index(object).byName(name), "named " + name, modeSet(modes));
+    return object;
+  }
+
+  /**
+   * injects fresh mocks into all injection points of an already injected object, which take the given type. Setters with
+   * several parameters get fresh mocks for all of them.
+   *
+   * @param object to be partially filled with mocks
+   * @param type type of the dependencies to be injected
+   * @param modes how the mocks are created and injected
+   * @param <T> type of object
+   * @return the object from the argument
+   */
+  public static <T> T reinjectMocks(T object, Class<?> type, InjectionMode... modes) {
+    injectMocks(object, index(object).byType(type), "of type " + type.getName(), modeSet(modes));
+    return object;
+  }
+
+  /**
+   * injects fresh mocks into all injection points of an already injected object, which are annotated with the given
+   * qualifier. The qualifier may also annotate a composed annotation of the injection point or a parameter of a setter.
+   *
+   * @param object to be partially filled with mocks
+   * @param qualifier javax, guice or spring qualifier of the fields or setters to be injected, e.g. <code>Named.class</code>
+   * @param modes how the mocks are created and injected
+   * @param <T> type of object
+   * @return the object from the argument
+   * @throws IllegalArgumentException if the annotation is no qualifier, e.g. an inject annotation
+   */
+  public static <T> T reinjectMocksQualifiedBy(T object, Class<? extends Annotation> qualifier, InjectionMode... modes) {
+    if (!AnnotationIndex.isQualifier(qualifier)) {
+      throw new IllegalArgumentException(qualifier.getName() + " is no qualifier");
+    }
+    injectMocks(object, index(object).byQualifierType(qualifier), "qualified by " + qualifier.getName(), modeSet(modes));
+    return object;
+  }
+
+  /**
+   * injects fresh mocks into all injection points of an already injected object, which are annotated with an equal
+   * qualifier, e.g. <code>@Named("primary")</code> but not <code>@Named("secondary")</code>. The qualifier may also
+   * annotate a composed annotation of the injection point or a parameter of a setter.
+   *
+   * @param object to be partially filled with mocks
+   * @param qualifier annotation of the fields or setters to be injected, e.g. read from another field
+   * @param modes how the mocks are created and injected
+   * @param <T> type of object
+   * @return the object from the argument
+   */
+  public static <T> T reinjectMocksQualifiedBy(T object, Annotation qualifier, InjectionMode... modes) {
+    injectMocks(object, index(object).byQualifier(qualifier), "qualified by " + qualifier, modeSet(modes));
+    return object;
+  }
+
+  /**
+   * injects the given dependency, e.g. a spy, into the injection points of an already injected object, which have the
+   * given name.
+   *
+   * @param object to be partially filled
+   * @param name name of the fields or setters to be injected
+   * @param dependency to be injected
+   * @param <T> type of object
+   * @return the object from the argument
+   */
+  public static <T> T injectDependency(T object, String name, Object dependency) {
+    List<InjectionPoint> points = index(object).byName(name);
+    assertFound(object, points, "named " + name);
+    try {
+      for (InjectionPoint point : points) {
+        point.inject(object, dependency);
+      }
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    return object;
+  }
+
   public static void injectFieldsAndSetters(Object object, Class<?> objectClass) throws IllegalAccessException, InvocationTargetException {
-    injectFields(object, objectClass);
-    injectSetter(object, objectClass);
+    injectFieldsAndSetters(object, objectClass, EnumSet.noneOf(InjectionMode.class));
   }
 
   public static void injectFields(Object object, Class<?> objectClass) throws IllegalAccessException, InvocationTargetException {
-    Class<?> superclass = objectClass.getSuperclass();
-    if (superclass != null) {
-      injectFields(object, superclass);
-    }
-    mockFieldsIfInjected(object, objectClass);
+    injectMocks(object, InjectionIndex.forClass(objectClass).getFields(), EnumSet.noneOf(InjectionMode.class));
   }
 
   public static void injectSetter(Object object, Class<?> objectClass) throws IllegalAccessException, InvocationTargetException {
-    Class<?> superclass = objectClass.getSuperclass();
-    if (superclass != null) {
-      injectSetter(object, superclass);
-    }
-    mockSetterIfInjected(object, objectClass);
+    injectMocks(object, InjectionIndex.forClass(objectClass).getSetters(), EnumSet.noneOf(InjectionMode.class));
   }
 
-  private static void mockFieldsIfInjected(Object object, Class<?> objectClass) throws IllegalAccessException {
-    for (Field field : objectClass.getDeclaredFields()) {
-      mockFieldIfInjected(object, field);
-    }
+  private static void injectFieldsAndSetters(Object object, Class<?> objectClass, Set<InjectionMode> modes) throws IllegalAccessException, InvocationTargetException {
+    InjectionIndex index = InjectionIndex.forClass(objectClass);
+    injectMocks(object, index.getFields(), modes);
+    injectMocks(object, index.getSetters(), modes);
   }
 
-  private static void mockSetterIfInjected(Object object, Class<?> objectClass) throws InvocationTargetException, IllegalAccessException {
-    for (Method method : objectClass.getDeclaredMethods()) {
-      injectMockIfInjectionSetterExists(object, method);
+  private static void injectMocks(Object object, List<InjectionPoint> points, Set<InjectionMode> modes) throws IllegalAccessException, InvocationTargetException {
+    for (InjectionPoint point : points) {
+      point.injectMocks(object, modes);
     }
   }
 
-  private static void injectMockIfInjectionSetterExists(Object object, Method method) throws InvocationTargetException, IllegalAccessException {
-    if (shouldBeInjected(method.getDeclaredAnnotations())) {
-      mockSetter(object, method);
-    }
+  private static Set<InjectionMode> modeSet(InjectionMode[] modes) {
+    Set<InjectionMode> modeSet = EnumSet.noneOf(InjectionMode.class);
+    Collections.addAll(modeSet, modes);
+    return modeSet;
   }
 
-  private static void mockFieldIfInjected(Object object, Field field) throws IllegalAccessException {
-    if (shouldBeInjected(field.getAnnotations())) {
-      mockField(object, field);
-    }
+  private static InjectionIndex index(Object object) {
+    return InjectionIndex.forClass(object.getClass());
   }
 
-  private static boolean shouldBeInjected(Annotation[] annotations) {
-    for (Annotation annotation : annotations) {
-      if (INJECTION_ANNOTATIONS.contains(annotation.annotationType())) {
-        return true;
-      }
+  private static void injectMocks(Object object, List<InjectionPoint> points, String selection, Set<InjectionMode> modes) {
+    assertFound(object, points, selection);
+    try {
+      injectMocks(object, points, modes);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
     }
-    return false;
   }
 
-  private static void mockSetter(Object object, Method method) throws InvocationTargetException, IllegalAccessException {
-    method.setAccessible(true);
-    Class<?>[] parameterTypes = method.getParameterTypes();
-
-    Object[] mocks = createMocksForParameterTypes(parameterTypes);
-    if (!anyNull(mocks)) { // avoid NullPointerExceptions in setter-code
-      method.invoke(object, mocks);
+  private static void assertFound(Object object, List<InjectionPoint> points, String selection) {
+    if (points.isEmpty()) {
+      throw new IllegalArgumentException("no injection point " + selection + " found in " + object.getClass());
     }
   }
 
-  private static boolean anyNull(Object[] mocks) {
-    for (Object mock : mocks) {
-      if (mock == null) {
+  static boolean shouldBeInjected(Annotation[] annotations) {
+    for (Annotation annotation : annotations) {
+      if (AnnotationIndex.isInjectAnnotation(annotation.annotationType())) {
         return true;
       }
     }
     return false;
   }
 
-  private static Object[] createMocksForParameterTypes(Class<?>[] parameterTypes) {
+  static Object[] createMocksForParameters(Member methodOrConstructor, Class<?>[] parameterTypes, Class<?> objectClass, Set<InjectionMode> modes) {
+    FieldUsage usage = modes.contains(InjectionMode.USAGE_DRIVEN) ? FieldUsage.of(objectClass) : null;
     Object[] mocks = new Object[parameterTypes.length];
     for (int i = 0; i < parameterTypes.length; i++) {
-      mocks[i] = mockIfMockable(parameterTypes[i]);
+      if (usage != null && !usage.isParameterRead(methodOrConstructor, i)) {
+        mocks[i] = sentinelIfMockable(parameterTypes[i]);
+      } else {
+        mocks[i] = mockIfMockable(parameterTypes[i], modes);
+      }
     }
     return mocks;
   }
 
-  private static Object mockIfMockable(Class parameterType) {
+  /**
+   * @return whether the object is a mock, which was neither stubbed nor invoked since its creation
+   */
+  static boolean isUntouchedMock(Object object) {
+    if (object == null) {
+      return false;
+    }
+    ConcurrentInvocations concurrentInvocations = ConcurrentInvocations.find(object);
+    if (concurrentInvocations != null && concurrentInvocations.count() > 0) {
+      return false; // concurrent mocks do not record invocations in Mockito
+    }
+    MockingDetails details = mockingDetails(object);
+    if (!details.isMock()) {
+      return concurrentInvocations != null; // concurrent mocks of interfaces cannot be stubbed
+    }
+    return details.getInvocations().isEmpty() && details.getStubbings().isEmpty();
+  }
+
+  /**
+   * @return a mock of the given type, which is shared by all injection points, that never use it. It fails on every
+   * invocation, so stubbing it cannot leak into other tests.
+   */
+  static Object sentinelIfMockable(Class<?> type) {
+    if (!isMockable(type)) {
+      return null;
+    }
+    Object sentinel = SENTINELS.get(type);
+    if (sentinel == null) {
+      try {
+        sentinel = mock(type, withSettings().stubOnly().defaultAnswer(new SentinelAnswer(type)));
+      } catch (Throwable t) {
+        throw new RuntimeException("could not create mock for " + type, t);
+      }
+      SENTINELS.put(type, sentinel);
+    }
+    return sentinel;
+  }
+
+  static Object mockIfMockable(Class parameterType, Set<InjectionMode> modes) {
     try {
       if (isMockable(parameterType)) {
+        Answer<Object> stubbingProfile = MockInjectorConfigurator.getStubbingProfile(parameterType);
+        if (modes.contains(InjectionMode.CONCURRENT)) {
+          return ConcurrentInvocations.mock(parameterType, stubbingProfile);
+        }
+        if (stubbingProfile != null) {
+          return mock(parameterType, stubbingProfile);
+        }
         return mock(parameterType);
       }
     } catch (Throwable t) {
@@ -178,16 +345,28 @@ public class MockInjector {
     return !type.isPrimitive() && !Modifier.isFinal(type.getModifiers());
   }
 
-  private static void mockField(Object object, Field field) throws IllegalAccessException {
-    field.setAccessible(true);
-    Class<?> fieldType = field.getType();
-    if (Modifier.isFinal(fieldType.getModifiers())) {
-      return; // don't touch final fields
-    } else {
-        Object mock = mockIfMockable(fieldType);
-        if (mock != null) {
-          field.set(object, mock);
+  private static class SentinelAnswer implements Answer<Object> {
+
+    private final Class<?> type;
+
+    SentinelAnswer(Class<?> type) {
+      this.type = type;
+    }
+
+    public Object answer(InvocationOnMock invocation) {
+      Method method = invocation.getMethod();
+      if (method.getParameterTypes().length == 0 && "toString".equals(method.getName())) {
+        return "shared mock for " + type.getName() + " never read (InjectionMode.USAGE_DRIVEN)";
+      }
+      if (method.getParameterTypes().length == 0 && "hashCode".equals(method.getName())) {
+        return System.identityHashCode(invocation.getMock());
+      }
+      if (method.getParameterTypes().length == 1 && "equals".equals(method.getName())) {
+        return invocation.getMock() == invocation.getArguments()[0];
       }
+      throw new IllegalStateException(method + " invoked on the shared mock for " + type.getName()
+                                      + ", which the analysis of InjectionMode.USAGE_DRIVEN found to be never read."
+                                      + " Inject without USAGE_DRIVEN to stub or invoke this dependency.");
     }
   }
 }
@@ -15,14 +15,20 @@
  */
 package org.hypoport.mockito;
 
+import org.mockito.stubbing.Answer;
+
 import java.lang.annotation.Annotation;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MockInjectorConfigurator {
 
   private static HashSet<String> injectAnnotationClassesAsStrings;
 
+  private static final Map<Class<?>, Answer<Object>> stubbingProfiles = new ConcurrentHashMap<Class<?>, Answer<Object>>();
+
   public static void setInjectAnnotations(Class<? extends Annotation>... classesToInject) {
     injectAnnotationClassesAsStrings = new HashSet<String>();
     for (Class<? extends Annotation> toInject : classesToInject) {
@@ -55,4 +61,26 @@ public class MockInjectorConfigurator {
     }
     return classesToInject;
   }
+
+  /**
+   * registers a stubbing profile, which is applied to all mocks of its type created afterwards. Replaces any profile
+   * previously registered for the same type.
+   *
+   * @param profile stubbing for all mocks of {@link StubbingProfile#getType()}
+   */
+  public static void addStubbingProfile(StubbingProfile<?> profile) {
+    stubbingProfiles.put(profile.getType(), profile.compile());
+  }
+
+  public static void removeStubbingProfile(Class<?> type) {
+    stubbingProfiles.remove(type);
+  }
+
+  public static void removeStubbingProfiles() {
+    stubbingProfiles.clear();
+  }
+
+  static Answer<Object> getStubbingProfile(Class<?> type) {
+    return stubbingProfiles.get(type);
+  }
 }
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+
+/**
+ * Reusable stubbing for all mocks of one dependency type <ul> <li>register it using {@link
+ * MockInjectorConfigurator#addStubbingProfile(StubbingProfile)}</li> <li>every mock of that type created by {@link
+ * MockInjector} answers the stubbed methods right away, no <code>when(...)</code> needed</li> <li>stubs match any
+ * arguments; use {@link MethodStubbing#willAnswer(Answer)} if the result depends on them</li> <li>stubs can still be
+ * overridden per test with <code>when(...)</code> or <code>given(...)</code></li> </ul>
+ *
+ * <pre>
+ *   MockInjectorConfigurator.addStubbingProfile(StubbingProfile.forType(SampleDependentServiceOne.class)
+ *       .on("getResult", ServiceInputParameter.class, ServiceInputParameter.class).willReturn(result));
+ * </pre>
+ *
+ * @param <T> the stubbed dependency type
+ */
+public class StubbingProfile<T> {
+
+  private static final Map<Class<?>, Class<?>> PRIMITIVE_WRAPPERS = new HashMap<Class<?>, Class<?>>();
+
+  static {
+    PRIMITIVE_WRAPPERS.put(boolean.class, Boolean.class);
+    PRIMITIVE_WRAPPERS.put(byte.class, Byte.class);
+    PRIMITIVE_WRAPPERS.put(char.class, Character.class);
+    PRIMITIVE_WRAPPERS.put(short.class, Short.class);
+    PRIMITIVE_WRAPPERS.put(int.class, Integer.class);
+    PRIMITIVE_WRAPPERS.put(long.class, Long.class);
+    PRIMITIVE_WRAPPERS.put(float.class, Float.class);
+    PRIMITIVE_WRAPPERS.put(double.class, Double.class);
+  }
+
+  private final Class<T> type;
+  private final Map<Method, Answer<?>> answers = new HashMap<Method, Answer<?>>();
+
+  private StubbingProfile(Class<T> type) {
+    this.type = type;
+  }
+
+  public static <T> StubbingProfile<T> forType(Class<T> type) {
+    return new StubbingProfile<T>(type);
+  }
+
+  public Class<T> getType() {
+    return type;
+  }
+
+  /**
+   * @param methodName name of the method to be stubbed
+   * @param parameterTypes parameter types of the method to be stubbed
+   * @return stubbing of the method, finished by <code>willReturn</code> or <code>willAnswer</code>
+   */
+  public MethodStubbing on(String methodName, Class<?>... parameterTypes) {
+    return new MethodStubbing(findMethod(methodName, parameterTypes));
+  }
+
+  /**
+   * copies the stubs into an immutable lookup table, so later changes to this profile do not affect registered ones
+   */
+  Answer<Object> compile() {
+    return new CompiledAnswer(new HashMap<Method, Answer<?>>(answers));
+  }
+
+  private Method findMethod(String methodName, Class<?>[] parameterTypes) {
+    try {
+      return type.getMethod(methodName, parameterTypes);
+    } catch (NoSuchMethodException ignore) {
+      // may be a package local or protected method
+    }
+    for (Class<?> clazz = type; clazz != null; clazz = clazz.getSuperclass()) {
+      try {
+        return clazz.getDeclaredMethod(methodName, parameterTypes);
+      } catch (NoSuchMethodException ignore) {
+        // try superclass
+      }
+    }
+    throw new IllegalArgumentException("no method " + methodName + " found in " + type);
+  }
+
+  public class MethodStubbing {
+
+    private final Method method;
+
+    private MethodStubbing(Method method) {
+      this.method = method;
+    }
+
+    /**
+     * @param value returned by every invocation of the method, regardless of its arguments
+     * @return the profile, to stub further methods
+     * @throws IllegalArgumentException if the value does not match the return type of the method
+     */
+    public StubbingProfile<T> willReturn(final Object value) {
+      if (!isReturnable(value)) {
+        throw new IllegalArgumentException("cannot return " + value + " from " + method + ", which returns " + method.getReturnType().getName());
+      }
+      return willAnswer(new Answer<Object>() {
+        public Object answer(InvocationOnMock invocation) {
+          return value;
+        }
+      });
+    }
+
+    public StubbingProfile<T> willAnswer(Answer<?> answer) {
+      answers.put(method, answer);
+      return StubbingProfile.this;
+    }
+
+    private boolean isReturnable(Object value) {
+      Class<?> returnType = method.getReturnType();
+      if (returnType == void.class) {
+        return false;
+      }
+      if (returnType.isPrimitive()) {
+        return value != null && PRIMITIVE_WRAPPERS.get(returnType) == value.getClass();
+      }
+      return value == null || returnType.isInstance(value);
+    }
+  }
+
+  private static class CompiledAnswer implements Answer<Object> {
+
+    private final Map<Method, Answer<?>> answers;
+
+    CompiledAnswer(Map<Method, Answer<?>> answers) {
+      this.answers = answers;
+    }
+
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+      Answer<?> answer = answers.get(invocation.getMethod());
+      if (answer != null) {
+        return answer.answer(invocation);
+      }
+      return RETURNS_DEFAULTS.answer(invocation);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito.benchmark;
+
+import org.hypoport.mockito.InjectionMode;
+import org.hypoport.mockito.MockInjector;
+import org.hypoport.mockito.MockInjectorConfigurator;
+import org.hypoport.mockito.StubbingProfile;
+import org.hypoport.mockito.provider.IProvided;
+
+import javax.inject.Inject;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * compares the throughput of mocks created by default with mocks created with {@link InjectionMode#CONCURRENT}, when
+ * many threads call the same subject. Not run by the build, start it with
+ * <code>java ConcurrentMocksBenchmark [threads] [calls per thread]</code>.
+ */
+public class ConcurrentMocksBenchmark {
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int calls = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+    MockInjectorConfigurator.addStubbingProfile(StubbingProfile.forType(IProvided.class).on("getSomething").willReturn("stubbed"));
+
+    // warm up both modes before measuring
+    run(MockInjector.injectMocks(Subject.class), threads, calls / 10);
+    run(MockInjector.injectMocks(Subject.class, InjectionMode.CONCURRENT), threads, calls / 10);
+
+    long byDefault = run(MockInjector.injectMocks(Subject.class), threads, calls);
+    long concurrent = run(MockInjector.injectMocks(Subject.class, InjectionMode.CONCURRENT), threads, calls);
+
+    long total = (long) threads * calls;
+    System.out.println(threads + " threads, " + calls + " calls per thread");
+    System.out.println("default mocks:    " + total * 1000 / Math.max(byDefault, 1) + " calls/s");
+    System.out.println("CONCURRENT mocks: " + total * 1000 / Math.max(concurrent, 1) + " calls/s");
+  }
+
+  /**
+   * @return milliseconds until all threads made their calls
+   */
+  private static long run(final Subject subject, int threads, final int calls) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch finished = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < calls; j++) {
+              subject.doWork();
+            }
+          } catch (InterruptedException ignore) {
+            // stop calling
+          } finally {
+            finished.countDown();
+          }
+        }
+      }.start();
+    }
+    long startTime = System.currentTimeMillis();
+    start.countDown();
+    finished.await();
+    return System.currentTimeMillis() - startTime;
+  }
+
+  public static class Subject {
+
+    @Inject
+    IProvided provided;
+
+    String doWork() {
+      return provided.getSomething();
+    }
+  }
+}
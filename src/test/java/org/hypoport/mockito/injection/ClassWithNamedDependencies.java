@@ -0,0 +1,37 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito.injection;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+public class ClassWithNamedDependencies {
+
+  @Inject
+  @Named("primary")
+  Injected primary;
+
+  @Inject
+  @Named("secondary")
+  Injected secondary;
+
+  Injected primaryParameter;
+
+  @Inject
+  void setPrimaryParameter(@Named("primary") Injected primaryParameter) {
+    this.primaryParameter = primaryParameter;
+  }
+}
@@ -16,15 +16,29 @@
 package org.hypoport.mockito.injection;
 
 import org.fest.assertions.Assertions;
+import org.hypoport.mockito.ConcurrentInvocations;
+import org.hypoport.mockito.InjectionMode;
 import org.hypoport.mockito.MockInjector;
 import org.hypoport.mockito.MockInjectorConfigurator;
+import org.hypoport.mockito.StubbingProfile;
+import org.hypoport.mockito.provider.IProvided;
 import org.mockito.internal.util.MockUtil;
 import org.testng.annotations.BeforeSuite;
 import org.testng.annotations.Test;
 
 import javax.annotation.Resource;
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class MockInjectorTest {
 
@@ -91,4 +105,401 @@ public class MockInjectorTest {
     Assertions.assertThat(MockUtil.isMock(object.toBeInjected2)).isTrue();
   }
 
+  @Test
+  public void injectMocks_applies_registered_StubbingProfile() {
+    MockInjectorConfigurator.addStubbingProfile(StubbingProfile.forType(IProvided.class).on("getSomething").willReturn("stubbed"));
+    try {
+      ClassWithStubbedDependency object = MockInjector.injectMocks(ClassWithStubbedDependency.class);
+
+      Assertions.assertThat(object.provided.getSomething()).isEqualTo("stubbed");
+      Assertions.assertThat(object.provided.getObject()).isNull();
+      Assertions.assertThat(MockUtil.isMock(object.notStubbed)).isTrue();
+      verify(object.provided).getSomething();
+    } finally {
+      MockInjectorConfigurator.removeStubbingProfiles();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void StubbingProfile_rejects_value_not_matching_the_return_type() {
+    StubbingProfile.forType(IProvided.class).on("getSomething").willReturn(42);
+  }
+
+  @Test
+  public void stubs_of_StubbingProfile_can_be_overridden() {
+    MockInjectorConfigurator.addStubbingProfile(StubbingProfile.forType(IProvided.class).on("getSomething").willReturn("stubbed"));
+    try {
+      ClassWithStubbedDependency object = MockInjector.injectMocks(ClassWithStubbedDependency.class);
+      when(object.provided.getSomething()).thenReturn("overridden");
+
+      Assertions.assertThat(object.provided.getSomething()).isEqualTo("overridden");
+    } finally {
+      MockInjectorConfigurator.removeStubbingProfiles();
+    }
+  }
+
+  @Test
+  public void reinjectMocks_by_name_injects_only_the_named_field() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+    Object injected = object.injected;
+    Object autowired = object.autowired;
+
+    MockInjector.reinjectMocks(object, "injected");
+
+    Assertions.assertThat(MockUtil.isMock(object.injected)).isTrue();
+    Assertions.assertThat(object.injected).isNotSameAs(injected);
+    Assertions.assertThat(object.autowired).isSameAs(autowired);
+  }
+
+  @Test
+  public void reinjectMocks_by_name_injects_the_named_setter() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+    Object setterInjectedField = object.setterInjectedField;
+    Object setter1InjectedField = object.setter1InjectedField;
+
+    MockInjector.reinjectMocks(object, "setterInjectedField");
+
+    Assertions.assertThat(MockUtil.isMock(object.setterInjectedField)).isTrue();
+    Assertions.assertThat(object.setterInjectedField).isNotSameAs(setterInjectedField);
+    Assertions.assertThat(object.setter1InjectedField).isSameAs(setter1InjectedField);
+  }
+
+  @Test
+  public void reinjectMocks_by_name_follows_JavaBeans_naming_of_setters() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+    Object url = object.url;
+
+    MockInjector.reinjectMocks(object, "URL");
+
+    Assertions.assertThat(MockUtil.isMock(object.url)).isTrue();
+    Assertions.assertThat(object.url).isNotSameAs(url);
+  }
+
+  @Test
+  public void reinjectMocks_by_type_injects_only_fields_of_that_type() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+    Provider<Injected> injectedProvider = object.injectedProvider;
+    Object injected = object.injected;
+
+    MockInjector.reinjectMocks(object, Provider.class);
+
+    Assertions.assertThat(MockUtil.isMock(object.injectedProvider)).isTrue();
+    Assertions.assertThat(object.injectedProvider).isNotSameAs(injectedProvider);
+    Assertions.assertThat(object.injected).isSameAs(injected);
+  }
+
+  @Test
+  public void reinjectMocksQualifiedBy_injects_only_qualified_fields() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+    Object named = object.named;
+    Object resource = object.resource;
+    Object injected = object.injected;
+
+    MockInjector.reinjectMocksQualifiedBy(object, Named.class);
+
+    Assertions.assertThat(MockUtil.isMock(object.named)).isTrue();
+    Assertions.assertThat(object.named).isNotSameAs(named);
+    Assertions.assertThat(object.resource).isSameAs(resource);
+    Assertions.assertThat(object.injected).isSameAs(injected);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void reinjectMocksQualifiedBy_fails_for_annotations_which_are_no_qualifiers() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+
+    MockInjector.reinjectMocksQualifiedBy(object, Inject.class);
+  }
+
+  @Test
+  public void injectDependency_injects_given_dependency() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+    Object dependency = new Object();
+
+    MockInjector.injectDependency(object, "autowired", dependency);
+
+    Assertions.assertThat(object.autowired).isSameAs(dependency);
+    Assertions.assertThat(MockUtil.isMock(object.injected)).isTrue();
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void reinjectMocks_fails_for_unknown_injection_point() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+
+    MockInjector.reinjectMocks(object, "notInjected");
+  }
+
+  @Test
+  public void injectMocks_in_CONCURRENT_mode_counts_invocations_of_all_threads() throws Throwable {
+    MockInjectorConfigurator.addStubbingProfile(StubbingProfile.forType(IProvided.class).on("getSomething").willReturn("stubbed"));
+    try {
+      final ClassWithStubbedDependency object = MockInjector.injectMocks(ClassWithStubbedDependency.class, InjectionMode.CONCURRENT);
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < 100; j++) {
+                Assertions.assertThat(object.provided.getSomething()).isEqualTo("stubbed");
+              }
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+
+      Assertions.assertThat(ConcurrentInvocations.of(object.provided).count("getSomething")).isEqualTo(800);
+      Assertions.assertThat(ConcurrentInvocations.of(object.provided).count()).isEqualTo(800);
+    } finally {
+      MockInjectorConfigurator.removeStubbingProfiles();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void ConcurrentInvocations_fails_for_default_mocks() {
+    MyClass object = MockInjector.injectMocks(MyClass.class);
+
+    ConcurrentInvocations.of(object.injected);
+  }
+
+  @Test
+  public void injectMocks_in_USAGE_DRIVEN_mode_shares_mocks_of_dependencies_never_read() {
+    UsageDrivenClass first = MockInjector.injectMocks(UsageDrivenClass.class, InjectionMode.USAGE_DRIVEN);
+    UsageDrivenClass second = MockInjector.injectMocks(UsageDrivenClass.class, InjectionMode.USAGE_DRIVEN);
+
+    Assertions.assertThat(MockUtil.isMock(first.read)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(first.notRead)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(first.setterRead)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(first.setterNotRead)).isTrue();
+    Assertions.assertThat(first.read).isNotSameAs(second.read);
+    Assertions.assertThat(first.setterRead).isNotSameAs(second.setterRead);
+    Assertions.assertThat(first.notRead).isSameAs(second.notRead);
+    Assertions.assertThat(first.setterNotRead).isSameAs(second.setterNotRead);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void injectMocks_in_USAGE_DRIVEN_mode_shares_mocks_which_fail_when_stubbed() {
+    UsageDrivenClass object = MockInjector.injectMocks(UsageDrivenClass.class, InjectionMode.USAGE_DRIVEN);
+
+    when(object.providedNotRead.getSomething()).thenReturn("leaking into other tests");
+  }
+
+  @Test
+  public void injectMocks_in_USAGE_DRIVEN_mode_shares_mocks_of_constructor_parameters_only_stored() {
+    UsageDrivenConstructorClass first = MockInjector.injectMocks(UsageDrivenConstructorClass.class, InjectionMode.USAGE_DRIVEN);
+    UsageDrivenConstructorClass second = MockInjector.injectMocks(UsageDrivenConstructorClass.class, InjectionMode.USAGE_DRIVEN);
+
+    Assertions.assertThat(first.used).isNotSameAs(second.used);
+    Assertions.assertThat(first.stored).isSameAs(second.stored);
+  }
+
+  @Test
+  public void injectMocks_in_USAGE_DRIVEN_mode_finds_reads_after_switches_and_wide_instructions() {
+    UsageDrivenSwitchClass first = MockInjector.injectMocks(UsageDrivenSwitchClass.class, InjectionMode.USAGE_DRIVEN);
+    UsageDrivenSwitchClass second = MockInjector.injectMocks(UsageDrivenSwitchClass.class, InjectionMode.USAGE_DRIVEN);
+
+    Assertions.assertThat(first.readAfterSwitches).isNotSameAs(second.readAfterSwitches);
+    Assertions.assertThat(first.notRead).isSameAs(second.notRead);
+  }
+
+  @Test
+  public void injectMocks_in_USAGE_DRIVEN_mode_finds_reads_in_anonymous_classes() {
+    UsageDrivenAnonymousClass first = MockInjector.injectMocks(UsageDrivenAnonymousClass.class, InjectionMode.USAGE_DRIVEN);
+    UsageDrivenAnonymousClass second = MockInjector.injectMocks(UsageDrivenAnonymousClass.class, InjectionMode.USAGE_DRIVEN);
+
+    Assertions.assertThat(first.readInAnonymousClass).isNotSameAs(second.readInAnonymousClass);
+    Assertions.assertThat(first.notRead).isSameAs(second.notRead);
+  }
+
+  @Test
+  public void injectMocks_in_USAGE_DRIVEN_mode_mocks_all_dependencies_if_class_file_cannot_be_read() throws Exception {
+    Class<?> clazz = new ClassFileHidingClassLoader(UsageDrivenClass.class).loadClass(UsageDrivenClass.class.getName());
+    Field notRead = clazz.getDeclaredField("notRead");
+    notRead.setAccessible(true);
+
+    Object first = MockInjector.injectMocks(clazz, InjectionMode.USAGE_DRIVEN);
+    Object second = MockInjector.injectMocks(clazz, InjectionMode.USAGE_DRIVEN);
+
+    Assertions.assertThat(clazz).isNotSameAs(UsageDrivenClass.class);
+    Assertions.assertThat(notRead.get(first)).isNotSameAs(notRead.get(second));
+  }
+
+  @Test
+  public void injectMocks_without_USAGE_DRIVEN_mode_mocks_all_dependencies() {
+    UsageDrivenClass first = MockInjector.injectMocks(UsageDrivenClass.class);
+    UsageDrivenClass second = MockInjector.injectMocks(UsageDrivenClass.class);
+
+    Assertions.assertThat(first.notRead).isNotSameAs(second.notRead);
+    Assertions.assertThat(first.setterNotRead).isNotSameAs(second.setterNotRead);
+  }
+
+  @Test
+  public void injectMocks_injects_mocks_into_fields_with_composed_inject_annotation() {
+    ClassWithComposedAnnotations object = MockInjector.injectMocks(ClassWithComposedAnnotations.class);
+
+    Assertions.assertThat(MockUtil.isMock(object.composed)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(object.plain)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(object.qualifiedParameter)).isTrue();
+  }
+
+  @Test
+  public void reinjectMocksQualifiedBy_finds_qualifiers_of_composed_annotations_and_setter_parameters() {
+    ClassWithComposedAnnotations object = MockInjector.injectMocks(ClassWithComposedAnnotations.class);
+    Injected composed = object.composed;
+    Injected qualifiedParameter = object.qualifiedParameter;
+    Injected plain = object.plain;
+
+    MockInjector.reinjectMocksQualifiedBy(object, Primary.class);
+
+    Assertions.assertThat(object.composed).isNotSameAs(composed);
+    Assertions.assertThat(object.qualifiedParameter).isNotSameAs(qualifiedParameter);
+    Assertions.assertThat(object.plain).isSameAs(plain);
+  }
+
+  @Test
+  public void injectMocks_in_INCREMENTAL_mode_replaces_only_used_mocks() {
+    ClassWithProvidedDependencies object = MockInjector.injectMocks(ClassWithProvidedDependencies.class);
+    IProvided stubbed = object.stubbed;
+    IProvided invoked = object.invoked;
+    IProvided untouched = object.untouched;
+    when(stubbed.getSomething()).thenReturn("stubbed");
+    invoked.getObject();
+
+    MockInjector.injectMocks(object, InjectionMode.INCREMENTAL);
+
+    Assertions.assertThat(MockUtil.isMock(object.stubbed)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(object.invoked)).isTrue();
+    Assertions.assertThat(object.stubbed).isNotSameAs(stubbed);
+    Assertions.assertThat(object.invoked).isNotSameAs(invoked);
+    Assertions.assertThat(object.untouched).isSameAs(untouched);
+  }
+
+  @Test
+  public void injectMocks_in_INCREMENTAL_mode_calls_only_setters_whose_mocks_were_used() {
+    ClassWithProvidedDependencies object = MockInjector.injectMocks(ClassWithProvidedDependencies.class);
+    IProvided setterInvoked = object.setterInvoked;
+    IProvided setterUntouched = object.setterUntouched;
+    setterInvoked.getObject();
+
+    MockInjector.injectMocks(object, InjectionMode.INCREMENTAL);
+
+    Assertions.assertThat(MockUtil.isMock(object.setterInvoked)).isTrue();
+    Assertions.assertThat(object.setterInvoked).isNotSameAs(setterInvoked);
+    Assertions.assertThat(object.setterUntouched).isSameAs(setterUntouched);
+  }
+
+  @Test
+  public void injectMocks_in_INCREMENTAL_mode_tells_equal_objects_apart() {
+    ValueObjectWithSetter injected = MockInjector.injectMocks(ValueObjectWithSetter.class);
+    ValueObjectWithSetter fresh = new ValueObjectWithSetter();
+
+    MockInjector.injectMocks(fresh, InjectionMode.INCREMENTAL);
+
+    Assertions.assertThat(fresh).isEqualTo(injected);
+    Assertions.assertThat(MockUtil.isMock(fresh.provided)).isTrue();
+  }
+
+  @Test
+  public void injectMocks_in_INCREMENTAL_mode_injects_mocks_into_empty_fields_and_setters() {
+    ClassWithProvidedDependencies object = new ClassWithProvidedDependencies();
+
+    MockInjector.injectMocks(object, InjectionMode.INCREMENTAL);
+
+    Assertions.assertThat(MockUtil.isMock(object.stubbed)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(object.invoked)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(object.untouched)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(object.setterInvoked)).isTrue();
+    Assertions.assertThat(MockUtil.isMock(object.setterUntouched)).isTrue();
+  }
+
+  @Test
+  public void injectMocks_in_CONCURRENT_mode_mocks_classes_and_interfaces() {
+    ClassWithStubbedDependency object = MockInjector.injectMocks(ClassWithStubbedDependency.class, InjectionMode.CONCURRENT);
+
+    object.provided.getSomething();
+
+    Assertions.assertThat(object.provided).isEqualTo(object.provided);
+    Assertions.assertThat(MockUtil.isMock(object.notStubbed)).isTrue();
+    Assertions.assertThat(ConcurrentInvocations.of(object.provided).count()).isEqualTo(1);
+    Assertions.assertThat(ConcurrentInvocations.of(object.notStubbed).count()).isEqualTo(0);
+  }
+
+  @Test
+  public void reinjectMocksQualifiedBy_with_qualifier_instance_distinguishes_qualifier_values() throws NoSuchFieldException {
+    ClassWithNamedDependencies object = MockInjector.injectMocks(ClassWithNamedDependencies.class);
+    Injected primary = object.primary;
+    Injected primaryParameter = object.primaryParameter;
+    Injected secondary = object.secondary;
+    Named named = ClassWithNamedDependencies.class.getDeclaredField("primary").getAnnotation(Named.class);
+
+    MockInjector.reinjectMocksQualifiedBy(object, named);
+
+    Assertions.assertThat(object.primary).isNotSameAs(primary);
+    Assertions.assertThat(object.primaryParameter).isNotSameAs(primaryParameter);
+    Assertions.assertThat(object.secondary).isSameAs(secondary);
+  }
+
+  /**
+   * defines the hidden class itself, but does not provide its class file as a resource
+   */
+  private static class ClassFileHidingClassLoader extends ClassLoader {
+
+    private final Class<?> hidden;
+
+    ClassFileHidingClassLoader(Class<?> hidden) {
+      super(hidden.getClassLoader());
+      this.hidden = hidden;
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!name.equals(hidden.getName())) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> clazz = findLoadedClass(name);
+      if (clazz == null) {
+        byte[] classFile = readClassFile();
+        clazz = defineClass(name, classFile, 0, classFile.length);
+      }
+      return clazz;
+    }
+
+    @Override
+    public URL getResource(String name) {
+      return null;
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+      return null;
+    }
+
+    private byte[] readClassFile() throws ClassNotFoundException {
+      InputStream in = getParent().getResourceAsStream(hidden.getName().replace('.', '/') + ".class");
+      try {
+        try {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          byte[] buffer = new byte[4096];
+          for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+          }
+          return out.toByteArray();
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        throw new ClassNotFoundException(hidden.getName(), e);
+      }
+    }
+  }
 }
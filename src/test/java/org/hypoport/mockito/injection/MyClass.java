@@ -17,6 +17,7 @@ package org.hypoport.mockito.injection;
 
 import javax.annotation.Resource;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
 
 public class MyClass {
@@ -30,6 +31,10 @@ public class MyClass {
   @Resource(name = "namedResource")
   Object resource;
 
+  @Inject
+  @Named("named")
+  Object named;
+
   Object notInjected;
 
   @Inject
@@ -45,6 +50,8 @@ public class MyClass {
   Object setter1InjectedField;
   Object setter2InjectedField;
 
+  Object url;
+
   @Inject
   private void setSetterInjectedField(Object setterInjectedField) {
     this.setterInjectedField = setterInjectedField;
@@ -56,6 +63,11 @@ public class MyClass {
     this.setter2InjectedField = setter2InjectedField;
   }
 
+  @Inject
+  void setURL(Object url) {
+    this.url = url;
+  }
+
   private void setSetterWithoutInject(Object setterWithoutInject) {
     this.setterWithoutInject = setterWithoutInject;
   }
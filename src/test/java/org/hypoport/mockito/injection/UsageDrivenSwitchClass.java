@@ -0,0 +1,60 @@
+/**
+ * Copyright 2012 HYPOPORT AG
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hypoport.mockito.injection;
+
+import javax.inject.Inject;
+
+public class UsageDrivenSwitchClass {
+
+  @Inject
+  Injected readAfterSwitches;
+
+  @Inject
+  Injected notRead;
+
+  public String describe(int value, String name) {
+    long big = 1234567890123L;
+    double ratio = 0.123456789;
+    switch (value) {
+      case 1:
+        big++;
+        break;
+      case 2:
+        big--;
+        break;
+      case 3:
+        ratio++;
+        break;
+      default:
+        break;
+    }
+    switch (value) {
+      case 10:
+        big *= 2;
+        break;
+      case 1000:
+        ratio *= 2;
+        break;
+      case 100000:
+        big /= 2;
+        break;
+      default:
+        break;
+    }
+    value += 1000;
+    return name + big + ratio + value + readAfterSwitches;
+  }
+}